@@ -1,5 +1,7 @@
 package com.example.assistant;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.PromptChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
@@ -12,26 +14,39 @@ import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.aot.hint.MemberCategory;
 import org.springframework.aot.hint.RuntimeHints;
 import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.repository.ListCrudRepository;
 import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.List;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
+@EnableScheduling
 @ImportRuntimeHints(BedrockRuntimeHints.class)
 @SpringBootApplication
 public class AssistantApplication {
@@ -66,6 +81,12 @@ interface DogRepository extends ListCrudRepository<Dog, Integer> {
 record Dog(@Id int id, String description, String owner, String name) {
 }
 
+/**
+ * Stays eager under the fast-start profile's lazy initialization, which pulls in the chat
+ * client, the advisors and the Bedrock models with it, so that they are ready before the
+ * instance reports ready rather than built by the first {@code /ask}.
+ */
+@Lazy(false)
 @Controller
 @ResponseBody
 @ImportRuntimeHints(AssistantController.Hints.class)
@@ -82,20 +103,8 @@ class AssistantController {
 
 	private final ChatClient ai;
 
-	AssistantController(ChatClient.Builder ai, JdbcClient db, DogAdoptionScheduler scheduler,
-			QuestionAnswerAdvisor questionAnswerAdvisor, VectorStore vectorStore, DogRepository repository,
-			PromptChatMemoryAdvisor promptChatMemoryAdvisor) {
-
-		if (db.sql("select count(id) as c from vector_store ")//
-			.query((rs, rowNum) -> rs.getLong("c")) //
-			.single() //
-			.intValue() == 0) {
-			repository.findAll().forEach(dog -> {
-				var dogument = new Document(
-						"id: %s, name: %s, description: %s".formatted(dog.id(), dog.name(), dog.description()));
-				vectorStore.add(List.of(dogument));
-			});
-		}
+	AssistantController(ChatClient.Builder ai, DogAdoptionScheduler scheduler,
+			QuestionAnswerAdvisor questionAnswerAdvisor, PromptChatMemoryAdvisor promptChatMemoryAdvisor) {
 		var prompt = """
 				You are an AI powered assistant to help people adopt a dog from the adoption\s
 				agency named Pooch Palace with locations in Oslo, Seoul, Denver, Tokyo, Singapore, Paris,\s
@@ -125,15 +134,192 @@ class AssistantController {
 record DogAdoptionSuggestion(int id, String name, String description) {
 }
 
+/**
+ * Loads the dogs into the vector store on a background thread once the application has
+ * started, so that an empty vector store doesn't hold up startup with a full re-embed.
+ * Until it's done the {@code vectorIndex} contributor, which is part of the readiness
+ * group, reports {@code OUT_OF_SERVICE}. A failed attempt reports {@code DOWN} and is
+ * retried with an exponential backoff, so a transient database or embedding error doesn't
+ * leave the instance unready for good.
+ */
+@Lazy(false)
+@Component("vectorIndexHealthIndicator")
+class VectorIndexBootstrap implements HealthIndicator {
+
+	private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+
+	private static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final AtomicReference<Health> health = new AtomicReference<>(Health.outOfService().build());
+
+	private final JdbcClient db;
+
+	private final VectorStore vectorStore;
+
+	private final DogRepository repository;
+
+	VectorIndexBootstrap(JdbcClient db, VectorStore vectorStore, DogRepository repository) {
+		this.db = db;
+		this.vectorStore = vectorStore;
+		this.repository = repository;
+	}
+
+	@EventListener(ApplicationStartedEvent.class)
+	void bootstrap() {
+		Thread.ofVirtual().name("vector-index-bootstrap").start(this::load);
+	}
+
+	private void load() {
+		var backoff = INITIAL_BACKOFF;
+		while (true) {
+			try {
+				if (this.db.sql("select count(id) as c from vector_store ")//
+					.query((rs, rowNum) -> rs.getLong("c")) //
+					.single() //
+					.intValue() == 0) {
+					var dogs = this.repository.findAll()
+						.stream()
+						.map(dog -> new Document(
+								"id: %s, name: %s, description: %s".formatted(dog.id(), dog.name(), dog.description())))
+						.toList();
+					this.vectorStore.add(dogs);
+				}
+				this.health.set(Health.up().build());
+				return;
+			} //
+			catch (Exception ex) {
+				this.log.error("could not bootstrap the vector store, retrying in {}", backoff, ex);
+				this.health.set(Health.down(ex).withDetail("retryIn", backoff.toString()).build());
+			}
+			try {
+				Thread.sleep(backoff);
+			} //
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			backoff = backoff.multipliedBy(2);
+			if (backoff.compareTo(MAX_BACKOFF) > 0) {
+				backoff = MAX_BACKOFF;
+			}
+		}
+	}
+
+	@Override
+	public Health health() {
+		return this.health.get();
+	}
+
+}
+
 @Component
 class DogAdoptionScheduler {
 
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final JdbcClient db;
+
+	private final TransactionTemplate tx;
+
+	DogAdoptionScheduler(JdbcClient db, TransactionTemplate tx) {
+		this.db = db;
+		this.tx = tx;
+	}
+
+	/**
+	 * Records the booking and its outbox entry in one transaction and returns right away.
+	 * {@link DogAdoptionOutboxDispatcher} confirms it later, or rejects it if the dog has
+	 * been adopted in the meantime. Unknown dogs and dogs that have already been adopted
+	 * are turned down here, before anything is recorded.
+	 */
 	@Tool(description = "schedule an appointment to pick up or adopt a dog from a Pooch Palace location")
 	String schedule(@ToolParam(description = "the id of the dog") int dogId,
 			@ToolParam(description = "the name of the dog") String dogName) {
-		var i = Instant.now().plus(3, ChronoUnit.DAYS).toString();
-		IO.println("scheduling " + dogId + '/' + dogName + " for " + i);
-		return i;
+		var i = Instant.now().plus(3, ChronoUnit.DAYS);
+		var bookingId = this.tx.execute(_ -> {
+			var adopted = this.db.sql("select adopted from dog where id = ?")
+				.param(dogId)
+				.query(Boolean.class)
+				.optional()
+				.orElseThrow(() -> new IllegalArgumentException("there is no dog with the id " + dogId));
+			if (adopted) {
+				throw new IllegalArgumentException("the dog with the id " + dogId + " has already been adopted");
+			}
+			var id = this.db
+				.sql("insert into dog_adoption_booking (dog_id, dog_name, pickup) values (?, ?, ?) returning id")
+				.params(dogId, dogName, Timestamp.from(i))
+				.query(Integer.class)
+				.single();
+			this.db.sql("insert into dog_adoption_outbox (booking_id) values (?)").param(id).update();
+			return id;
+		});
+		this.log.info("scheduling {}/{} for {} (booking #{})", dogId, dogName, i, bookingId);
+		return i.toString();
+	}
+
+}
+
+/**
+ * Drains the adoption outbox in batches. The rows are claimed with
+ * {@code FOR UPDATE SKIP LOCKED} so that several instances can poll at the same time
+ * without handing out the same booking twice; if a batch fails, its transaction rolls
+ * back and the rows are picked up again on the next poll. Each booking claims its dog
+ * with a conditional update and is confirmed only if that claim succeeds, so of two
+ * bookings for the same dog the first one dispatched wins and the other is rejected. The
+ * dogs are claimed in id order so that two instances can't deadlock on each other's dogs.
+ */
+@Lazy(false)
+@Component
+class DogAdoptionOutboxDispatcher {
+
+	private final JdbcClient db;
+
+	private final TransactionTemplate tx;
+
+	private final int batchSize;
+
+	DogAdoptionOutboxDispatcher(JdbcClient db, TransactionTemplate tx,
+			@Value("${assistant.adoptions.outbox.batch-size:100}") int batchSize) {
+		this.db = db;
+		this.tx = tx;
+		this.batchSize = batchSize;
+	}
+
+	@Scheduled(fixedDelayString = "${assistant.adoptions.outbox.poll-interval:1s}")
+	void dispatch() {
+		while (Objects.requireNonNull(this.tx.execute(_ -> this.dispatchBatch())) == this.batchSize) {
+			// keep going until the outbox is drained
+		}
+	}
+
+	private int dispatchBatch() {
+		var outbox = this.db.sql("""
+				select o.id, o.booking_id, b.dog_id from dog_adoption_outbox o
+				join dog_adoption_booking b on b.id = o.booking_id
+				order by o.id limit :limit for update of o skip locked
+				""")
+			.param("limit", this.batchSize)
+			.query((rs, rowNum) -> new OutboxEntry(rs.getLong("id"), rs.getInt("booking_id"), rs.getInt("dog_id")))
+			.list();
+		if (outbox.isEmpty())
+			return 0;
+		for (var entry : outbox.stream().sorted(Comparator.comparingInt(OutboxEntry::dogId)).toList()) {
+			var claimed = this.db.sql("update dog set adopted = true where id = ? and not adopted")
+				.param(entry.dogId())
+				.update() == 1;
+			this.db.sql("update dog_adoption_booking set status = ? where id = ? and status = 'PENDING'")
+				.params(claimed ? "CONFIRMED" : "REJECTED", entry.bookingId())
+				.update();
+		}
+		this.db.sql("delete from dog_adoption_outbox where id in (:ids)")
+			.param("ids", outbox.stream().map(OutboxEntry::id).toList())
+			.update();
+		return outbox.size();
+	}
+
+	private record OutboxEntry(long id, int bookingId, int dogId) {
 	}
 
 }
@@ -0,0 +1,16 @@
+create table if not exists dog_adoption_booking
+(
+    id       serial primary key,
+    dog_id   integer     not null,
+    dog_name text        not null,
+    pickup   timestamptz not null,
+    status   text        not null default 'PENDING',
+    created  timestamptz not null default now()
+);
+
+create table if not exists dog_adoption_outbox
+(
+    id         bigserial primary key,
+    booking_id integer     not null references dog_adoption_booking (id),
+    created    timestamptz not null default now()
+);
@@ -0,0 +1,141 @@
+package com.example.assistant;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+/**
+ * Runs against the PostgreSQL database from {@code compose.yml}, with the {@code dog}
+ * table from {@code data.sql}: {@code FOR UPDATE SKIP LOCKED} and the claiming of the
+ * dogs can't be tested on an embedded database. The dogs it books are its own and are
+ * removed again.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class DogAdoptionOutboxDispatcherTests {
+
+	private static final List<Integer> DOGS = List.of(90001, 90002, 90003, 90004, 90005);
+
+	private static final int BOOKINGS_PER_DOG = 10;
+
+	private static final int DISPATCHERS = 4;
+
+	// just the adoption components, not the chat client and the vector store
+	@Configuration
+	@Import(DogAdoptionScheduler.class)
+	static class Config {
+
+	}
+
+	@Autowired
+	private JdbcClient db;
+
+	@Autowired
+	private TransactionTemplate tx;
+
+	@Autowired
+	private DogAdoptionScheduler scheduler;
+
+	@BeforeEach
+	void insertDogs() {
+		deleteDogs();
+		for (var id : DOGS) {
+			this.db.sql("""
+					insert into dog (id, name, description, dob, owner, image)
+					values (?, 'Test', 'a dog for the tests', current_date, null, '')
+					""").param(id).update();
+		}
+	}
+
+	@AfterEach
+	void deleteDogs() {
+		this.db.sql("""
+				delete from dog_adoption_outbox where booking_id in
+				(select id from dog_adoption_booking where dog_id in (:dogs))
+				""").param("dogs", DOGS).update();
+		this.db.sql("delete from dog_adoption_booking where dog_id in (:dogs)").param("dogs", DOGS).update();
+		this.db.sql("delete from dog where id in (:dogs)").param("dogs", DOGS).update();
+	}
+
+	@Test
+	void concurrentDispatchersConfirmExactlyOneBookingPerDog() throws Exception {
+		// the bookings for each dog are spread over the outbox, so that every batch has
+		// bookings for several dogs and the dispatchers compete for the same dogs
+		IntStream.range(0, BOOKINGS_PER_DOG)
+			.forEach(booking -> DOGS.forEach(dog -> this.scheduler.schedule(dog, "Test")));
+		var start = new CountDownLatch(1);
+		try (var executor = Executors.newFixedThreadPool(DISPATCHERS)) {
+			var dispatchers = new ArrayList<Future<?>>();
+			for (var i = 0; i < DISPATCHERS; i++) {
+				var dispatcher = new DogAdoptionOutboxDispatcher(this.db, this.tx, 7);
+				dispatchers.add(executor.submit(() -> {
+					start.await();
+					dispatcher.dispatch();
+					return null;
+				}));
+			}
+			start.countDown();
+			for (var dispatcher : dispatchers) {
+				// a deadlock between two dispatchers fails one of them here
+				dispatcher.get();
+			}
+		}
+		for (var dog : DOGS) {
+			assertThat(statuses(dog)).as("bookings for dog #%d", dog)
+				.containsEntry("CONFIRMED", 1)
+				.containsEntry("REJECTED", BOOKINGS_PER_DOG - 1)
+				.hasSize(2);
+		}
+		assertThat(this.db.sql("select count(*) from dog where id in (:dogs) and adopted")
+			.param("dogs", DOGS)
+			.query(Integer.class)
+			.single()).isEqualTo(DOGS.size());
+		assertThat(this.db.sql("select count(*) from dog_adoption_outbox").query(Integer.class).single()).isZero();
+	}
+
+	@Test
+	void schedulingTurnsDownUnknownAndAdoptedDogs() {
+		this.db.sql("update dog set adopted = true where id = ?").param(DOGS.getFirst()).update();
+		assertThatIllegalArgumentException().isThrownBy(() -> this.scheduler.schedule(DOGS.getFirst(), "Test"))
+			.withMessageContaining("already been adopted");
+		assertThatIllegalArgumentException().isThrownBy(() -> this.scheduler.schedule(-1, "Test"))
+			.withMessageContaining("there is no dog");
+		assertThat(this.db.sql("select count(*) from dog_adoption_booking where dog_id in (:dogs)")
+			.param("dogs", DOGS)
+			.query(Integer.class)
+			.single()).isZero();
+	}
+
+	private Map<String, Integer> statuses(int dog) {
+		var statuses = new HashMap<String, Integer>();
+		this.db.sql("select status, count(*) from dog_adoption_booking where dog_id = ? group by status")
+			.param(dog)
+			.query(rs -> {
+				statuses.put(rs.getString(1), rs.getInt(2));
+			});
+		return statuses;
+	}
+
+}
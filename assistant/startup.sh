@@ -0,0 +1,38 @@
+#!/usr/bin/env bash
+# reports the time from launch until /actuator/health/readiness answers 200, i.e. until the
+# vector store has been bootstrapped and the instance can take traffic. build the variants first:
+#
+#   ./mvnw -DskipTests package                      # jvm
+#   ./mvnw -DskipTests -Pfast-start package         # jvm with Spring AOT and the JDK AOT cache
+#                                                   # (its training run needs the compose.yml database)
+#   ./mvnw -DskipTests -Pnative native:compile      # native
+#
+# usage: ./startup.sh [jvm|fast-start|native] [runs]
+
+java=${JAVA_HOME:+$JAVA_HOME/bin/}java
+variant=${1:-jvm}
+runs=${2:-5}
+readiness=http://localhost:8083/actuator/health/readiness
+
+case $variant in
+  jvm)        command="$java -jar target/assistant-0.0.1-SNAPSHOT.jar" ;;
+  fast-start) command="$java -XX:AOTCache=target/application/assistant.aot -Dspring.aot.enabled=true -Dspring.profiles.active=fast-start -jar target/application/assistant-0.0.1-SNAPSHOT.jar" ;;
+  native)     command="target/assistant" ;;
+  *)          echo "unknown variant $variant" && exit 1 ;;
+esac
+
+for run in $(seq 1 $runs); do
+  start=$(date +%s%N)
+  $command > target/startup-$variant-$run.log 2>&1 &
+  pid=$!
+  until [ "$(curl -s -o /dev/null -w '%{http_code}' $readiness)" == "200" ]; do
+    if ! kill -0 $pid 2>/dev/null; then
+      echo "$variant exited before it was ready, see target/startup-$variant-$run.log" && exit 1
+    fi
+    sleep 0.05
+  done
+  ready=$(( ($(date +%s%N) - start) / 1000000 ))
+  rss=$(ps -o rss= -p $pid)
+  echo "$variant run $run: ready in ${ready}ms, rss $(( rss / 1024 ))MB"
+  kill $pid && wait $pid 2>/dev/null
+done
@@ -84,7 +84,8 @@ CREATE TABLE public.dog (
     dob date NOT NULL,
     owner text,
     gender character(1) DEFAULT 'f'::bpchar NOT NULL,
-    image text NOT NULL
+    image text NOT NULL,
+    adopted boolean DEFAULT false NOT NULL
 );
 
 
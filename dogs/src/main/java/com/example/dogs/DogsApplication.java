@@ -1,21 +1,72 @@
 package com.example.dogs;
 
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanRegistrar;
 import org.springframework.beans.factory.BeanRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.repository.ListCrudRepository;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.imageio.ImageIO;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collection;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Import(DogsApplication.MyBeanRegistrar.class)
 @SpringBootApplication
@@ -87,5 +138,336 @@ interface DogRepository extends ListCrudRepository<Dog, Integer> {
     Collection <Dog> findByOwner(String owner);
 }
 
-record Dog(@Id int id, String name, String owner, String description) {
+record Dog(@Id int id, String name, String owner, String description, String image) {
+}
+
+enum DogImageSize {
+
+    ORIGINAL(0), SMALL(128), MEDIUM(400);
+
+    private final int width;
+
+    DogImageSize(int width) {
+        this.width = width;
+    }
+
+    int width() {
+        return width;
+    }
+
+    static DogImageSize of(String size) {
+        try {
+            return valueOf(size.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "unknown image size: " + size);
+        }
+    }
+}
+
+/**
+ * a read-only view of an image file on disk, mapped into memory once and then shared across
+ * requests, along with the strong ETag computed from its bytes.
+ */
+record MappedImage(Path path, ByteBuffer bytes, String etag, MediaType mediaType) {
+}
+
+@Controller
+class DogImageController {
+
+    private static final CacheControl CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(7)).cachePrivate();
+
+    // thumbnails are rendered right after startup, so a client that asks while one is being
+    // prepared only has to wait a moment
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(5);
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final DogRepository repository;
+
+    private final DogImageStore images;
+
+    DogImageController(DogRepository repository, DogImageStore images) {
+        this.repository = repository;
+        this.images = images;
+    }
+
+    @GetMapping("/dogs/{id}/image")
+    void image(@PathVariable int id,
+               @RequestParam(defaultValue = "original") String size,
+               ServletWebRequest request,
+               HttpServletResponse response) throws IOException {
+        var dog = this.repository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        if (!StringUtils.hasText(dog.image()))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "dog #" + id + " has no image");
+        var image = this.images.find(dog, DogImageSize.of(size)).orElse(null);
+        if (image == null) {
+            if (this.images.failed(dog))
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "could not prepare the image of dog #" + id);
+            // only promise a retry while there's a job that will produce the image. if the queue
+            // was full there is none, and the client should come back when it likes
+            if (this.images.preparing(dog))
+                response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(RETRY_AFTER.toSeconds()));
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "image is not ready yet");
+        }
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL.getHeaderValue());
+        if (request.checkNotModified(image.etag()))
+            return;
+        var bytes = image.bytes().duplicate();
+        response.setContentType(image.mediaType().toString());
+        response.setContentLength(bytes.remaining());
+        // with sendfile tomcat hands the file to the kernel once the request is done, so the
+        // bytes never pass through the heap. without it (e.g. behind TLS) they're written out
+        // of the mapped buffer instead
+        var servletRequest = request.getRequest();
+        if (Boolean.TRUE.equals(servletRequest.getAttribute(SENDFILE_SUPPORT))) {
+            servletRequest.setAttribute(SENDFILE_FILENAME, image.path().toAbsolutePath().toString());
+            servletRequest.setAttribute(SENDFILE_START, 0L);
+            servletRequest.setAttribute(SENDFILE_END, (long) bytes.remaining());
+            return;
+        }
+        var out = Channels.newChannel(response.getOutputStream());
+        while (bytes.hasRemaining())
+            out.write(bytes);
+    }
+}
+
+/**
+ * downloads each dog's original image once, renders the thumbnails on a small, bounded pool of
+ * platform threads (resizing is CPU bound, so it stays off the virtual threads serving requests)
+ * and memory-maps the finished files, which is where their ETags come from. an image that can't
+ * be downloaded or decoded is remembered as failed, and isn't tried again for a while.
+ */
+@Component
+class DogImageStore implements DisposableBean {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<Path, MappedImage> mapped = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> preparing = new ConcurrentHashMap<>();
+
+    private final Map<String, Instant> failures = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    private final HttpClient http;
+
+    private final DogRepository repository;
+
+    private final Path directory;
+
+    private final Duration downloadTimeout;
+
+    private final Duration retryFailedAfter;
+
+    DogImageStore(DogRepository repository,
+                  @Value("${dogs.images.directory}") Path directory,
+                  @Value("${dogs.images.resize-threads:2}") int threads,
+                  @Value("${dogs.images.resize-queue-capacity:256}") int queueCapacity,
+                  @Value("${dogs.images.download-timeout:PT10S}") Duration downloadTimeout,
+                  @Value("${dogs.images.retry-failed-after:PT10M}") Duration retryFailedAfter) {
+        this.repository = repository;
+        this.directory = directory;
+        this.downloadTimeout = downloadTimeout;
+        this.retryFailedAfter = retryFailedAfter;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), Thread.ofPlatform().name("dog-images-", 0).factory());
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(downloadTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void resizeAll() {
+        this.repository.findAll()
+                .stream()
+                .filter(dog -> StringUtils.hasText(dog.image()))
+                .forEach(this::schedule);
+    }
+
+    Optional<MappedImage> find(Dog dog, DogImageSize size) {
+        if (!StringUtils.hasText(dog.image()))
+            return Optional.empty();
+        var path = this.path(dog, size);
+        if (Files.exists(path))
+            return Optional.of(this.mapped.computeIfAbsent(path, this::map));
+        if (!this.failed(dog))
+            this.schedule(dog);
+        return Optional.empty();
+    }
+
+    boolean preparing(Dog dog) {
+        return this.preparing.containsKey(key(dog));
+    }
+
+    boolean failed(Dog dog) {
+        var failed = this.failures.get(key(dog));
+        return failed != null && failed.plus(this.retryFailedAfter).isAfter(Instant.now());
+    }
+
+    private void schedule(Dog dog) {
+        var key = key(dog);
+        if (this.preparing.putIfAbsent(key, Boolean.TRUE) != null)
+            return;
+        try {
+            this.executor.execute(() -> {
+                try {
+                    this.prepare(dog);
+                    this.failures.remove(key);
+                }
+                catch (Exception e) {
+                    this.failures.put(key, Instant.now());
+                    this.log.warn("could not prepare the image for dog #{}, trying again in {}", dog.id(),
+                            this.retryFailedAfter, e);
+                }
+                finally {
+                    this.preparing.remove(key);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            this.preparing.remove(key);
+        }
+    }
+
+    private void prepare(Dog dog) throws IOException {
+        var original = this.path(dog, DogImageSize.ORIGINAL);
+        // the original is only kept once it decodes, so size=original never serves something
+        // that isn't an image
+        var source = Files.exists(original) ? null : this.write(original, tmp -> {
+            this.download(dog, tmp);
+            return decode(dog, tmp);
+        });
+        for (var size : DogImageSize.values()) {
+            var thumbnail = this.path(dog, size);
+            if (size == DogImageSize.ORIGINAL || Files.exists(thumbnail))
+                continue;
+            if (source == null)
+                source = decode(dog, original);
+            var scaled = scale(source, size.width());
+            this.write(thumbnail, tmp -> {
+                if (!ImageIO.write(scaled, extension(dog), tmp.toFile()))
+                    throw new IOException("there is no " + extension(dog) + " writer for the image of dog #" + dog.id());
+                return null;
+            });
+        }
+    }
+
+    private void download(Dog dog, Path file) throws IOException {
+        var uri = URI.create(dog.image());
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme()))
+            throw new IOException("only http(s) images are downloaded, not " + uri);
+        var request = HttpRequest.newBuilder(uri).timeout(this.downloadTimeout).build();
+        // the request timeout stops at the response headers, so the whole download is bounded here
+        var download = this.http.sendAsync(request, HttpResponse.BodyHandlers.ofFile(file));
+        try {
+            var response = download.get(this.downloadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (response.statusCode() != HttpStatus.OK.value())
+                throw new IOException("got " + response.statusCode() + " for " + uri);
+        }
+        catch (TimeoutException e) {
+            download.cancel(true);
+            throw new IOException("could not download " + uri + " within " + this.downloadTimeout, e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("could not download " + uri, e.getCause());
+        }
+        catch (InterruptedException e) {
+            download.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while downloading " + uri);
+        }
+    }
+
+    private static BufferedImage decode(Dog dog, Path file) throws IOException {
+        var image = ImageIO.read(file.toFile());
+        if (image == null)
+            throw new IOException("the image for dog #" + dog.id() + " is not in a format we can read");
+        return image;
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width) {
+        var w = Math.min(width, source.getWidth());
+        var h = Math.max(1, Math.round(source.getHeight() * (w / (float) source.getWidth())));
+        var type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        var scaled = new BufferedImage(w, h, type);
+        var graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, w, h, null);
+        }
+        finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private interface FileWriter<T> {
+
+        T write(Path path) throws IOException;
+    }
+
+    // files are written next to their final name and then moved into place, so a
+    // reader never maps a half-written image
+    private <T> T write(Path path, FileWriter<T> writer) throws IOException {
+        Files.createDirectories(path.getParent());
+        var tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            var result = writer.write(tmp);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return result;
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private MappedImage map(Path path) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes.duplicate());
+            var etag = '"' + HexFormat.of().formatHex(digest.digest()) + '"';
+            var mediaType = MediaTypeFactory.getMediaType(path.getFileName().toString())
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM);
+            return new MappedImage(path, bytes.asReadOnlyBuffer(), etag, mediaType);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // the directory is keyed on the image location too, so changing a dog's picture
+    // never serves the old files
+    private Path path(Dog dog, DogImageSize size) {
+        return this.directory.resolve(key(dog)).resolve(size.name().toLowerCase(Locale.ROOT) + "." + extension(dog));
+    }
+
+    private static String key(Dog dog) {
+        return dog.id() + "-" + Integer.toHexString(dog.image().hashCode());
+    }
+
+    private static String extension(Dog dog) {
+        var extension = StringUtils.getFilenameExtension(dog.image());
+        return StringUtils.hasText(extension) ? extension.toLowerCase(Locale.ROOT) : "png";
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.shutdownNow();
+        this.http.close();
+    }
 }
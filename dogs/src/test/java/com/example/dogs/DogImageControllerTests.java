@@ -0,0 +1,163 @@
+package com.example.dogs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class DogImageControllerTests {
+
+	private final DogRepository repository = mock(DogRepository.class);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final AtomicInteger downloads = new AtomicInteger();
+
+	private HttpServer server;
+
+	private DogImageStore images;
+
+	private MockMvc mvc;
+
+	@BeforeEach
+	void setUp(@TempDir Path directory) throws Exception {
+		var png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB), "png", png);
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/dog.png", exchange -> respond(exchange, png.toByteArray()));
+		this.server.createContext("/not-an-image.png",
+				exchange -> respond(exchange, "woof".getBytes(StandardCharsets.UTF_8)));
+		this.server.createContext("/slow.png", exchange -> {
+			try {
+				this.release.await();
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			respond(exchange, png.toByteArray());
+		});
+		this.server.start();
+		this.images = new DogImageStore(this.repository, directory, 1, 16, Duration.ofSeconds(5),
+				Duration.ofMinutes(10));
+		this.mvc = MockMvcBuilders.standaloneSetup(new DogImageController(this.repository, this.images)).build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.release.countDown();
+		this.images.destroy();
+		this.server.stop(0);
+	}
+
+	@Test
+	void thumbnailHasAStrongETagAndIsCachedPrivately() throws Exception {
+		dog(1, url("/dog.png"));
+		var etag = awaitImage("/dogs/1/image?size=small").getResponse().getHeader(HttpHeaders.ETAG);
+		assertThat(etag).matches("\"[0-9a-f]{64}\"");
+		this.mvc.perform(get("/dogs/1/image?size=small"))
+			.andExpect(status().isOk())
+			.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=604800, private"))
+			.andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"));
+		this.mvc.perform(get("/dogs/1/image?size=small").header(HttpHeaders.IF_NONE_MATCH, etag))
+			.andExpect(status().isNotModified());
+		var thumbnail = ImageIO.read(new ByteArrayInputStream(
+				this.mvc.perform(get("/dogs/1/image?size=small")).andReturn().getResponse().getContentAsByteArray()));
+		assertThat(thumbnail.getWidth()).isEqualTo(128);
+		assertThat(this.downloads).hasValue(1);
+	}
+
+	@Test
+	void unknownSizeIsABadRequest() throws Exception {
+		dog(1, url("/dog.png"));
+		this.mvc.perform(get("/dogs/1/image?size=huge")).andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void dogWithoutAnImageIsNotFound() throws Exception {
+		dog(1, "");
+		this.mvc.perform(get("/dogs/1/image")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void thumbnailThatIsBeingRenderedIsUnavailableForAMoment() throws Exception {
+		dog(1, url("/slow.png"));
+		this.mvc.perform(get("/dogs/1/image?size=small"))
+			.andExpect(status().isServiceUnavailable())
+			.andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"));
+		this.release.countDown();
+		awaitImage("/dogs/1/image?size=small");
+	}
+
+	@Test
+	void imageThatIsNotAnImageFailsWithoutBeingDownloadedAgain() throws Exception {
+		dog(1, url("/not-an-image.png"));
+		awaitStatus("/dogs/1/image", 502);
+		this.mvc.perform(get("/dogs/1/image"))
+			.andExpect(status().isBadGateway())
+			.andExpect(header().doesNotExist(HttpHeaders.RETRY_AFTER));
+		assertThat(this.downloads).hasValue(1);
+	}
+
+	@Test
+	void imageThatIsNotOnTheWebIsNotDownloaded() throws Exception {
+		dog(1, "file:///etc/passwd");
+		awaitStatus("/dogs/1/image", 502);
+	}
+
+	private void dog(int id, String image) {
+		given(this.repository.findById(id)).willReturn(Optional.of(new Dog(id, "Prancer", "josh", "a dog", image)));
+	}
+
+	private String url(String path) {
+		return "http://localhost:" + this.server.getAddress().getPort() + path;
+	}
+
+	private MvcResult awaitImage(String path) throws Exception {
+		awaitStatus(path, 200);
+		return this.mvc.perform(get(path)).andExpect(status().isOk()).andReturn();
+	}
+
+	private void awaitStatus(String path, int status) throws Exception {
+		var deadline = Instant.now().plusSeconds(10);
+		while (this.mvc.perform(get(path)).andReturn().getResponse().getStatus() != status) {
+			assertThat(Instant.now()).as("%s to answer %d", path, status).isBefore(deadline);
+			Thread.sleep(50);
+		}
+	}
+
+	private void respond(HttpExchange exchange, byte[] body) throws IOException {
+		this.downloads.incrementAndGet();
+		exchange.sendResponseHeaders(200, body.length);
+		try (var out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+#!/usr/bin/env bash
+# builds dogs, the assistant and the gateway, then runs them against a throwaway pgvector
+# database (docker), a stub OIDC issuer on :9090 and fake AI models, and drives load through
+# the gateway. the report ends up in target/loadtest/report.txt next to each service's log and
+# flight recording. exits 1 if the run goes over budget or a virtual user fails. needs docker
+# and java 25.
+#
+#   -Dloadtest.users=20                    closed-loop virtual users
+#   -Dloadtest.warmup=PT15S                not measured
+#   -Dloadtest.duration=PT1M               measured
+#   -Dloadtest.think-time=PT0S             pause between a user's requests
+#   -Dloadtest.mix=dogs=6,me=3,ask=1       weighted workloads: dogs, me, ask
+#   -Dloadtest.ai.chat-latency=PT0.2S      delay of the fake chat model
+#   -Dloadtest.ai.embedding-latency=PT0.02S delay of the fake embedding model
+#   -Dloadtest.max-error-rate=0            budget, as a fraction of requests
+#   -Dloadtest.max-p99=PT0.5S              budget, unset by default
+#
+# usage: ./loadtest.sh [-Dloadtest.users=50 ...]
+
+set -e
+cd "$(dirname "$0")"
+
+for service in dogs assistant gateway; do
+  (cd ../$service && ./mvnw -q -DskipTests package)
+done
+
+./mvnw -q -DskipTests package exec:java "$@"
@@ -0,0 +1,126 @@
+package com.example.loadtest;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Replaces Bedrock in the assistant during a load test. {@link LoadTest} puts this module
+ * on the assistant's {@code loader.path} and switches the Bedrock models off with
+ * {@code spring.ai.model.chat=none} and {@code spring.ai.model.embedding=none}.
+ */
+@AutoConfiguration
+class FakeAiAutoConfiguration {
+
+	@Bean
+	FakeChatModel fakeChatModel(@Value("${loadtest.ai.chat-latency:200ms}") Duration latency) {
+		return new FakeChatModel(latency);
+	}
+
+	@Bean
+	FakeEmbeddingModel fakeEmbeddingModel(@Value("${loadtest.ai.embedding-latency:20ms}") Duration latency,
+			@Value("${spring.ai.vectorstore.pgvector.dimensions:1024}") int dimensions) {
+		return new FakeEmbeddingModel(latency, dimensions);
+	}
+
+	static void pause(Duration latency) {
+		try {
+			Thread.sleep(latency);
+		} //
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
+
+/**
+ * Answers every prompt with the same reply after a fixed delay. The reply is JSON, so it
+ * works for {@code /ask} and for the structured output in {@code /askso}.
+ */
+class FakeChatModel implements ChatModel {
+
+	private static final String REPLY = """
+			{"id": 45, "name": "Prancer", "description": "A demonic, neurotic, man hating, animal hating, children hating dogs that look like gremlins."}
+			""";
+
+	private final Duration latency;
+
+	FakeChatModel(Duration latency) {
+		this.latency = latency;
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		FakeAiAutoConfiguration.pause(this.latency);
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(REPLY))));
+	}
+
+}
+
+/**
+ * Returns a unit vector derived from the hash of the text after a fixed delay, so the
+ * same text always embeds to the same vector.
+ */
+class FakeEmbeddingModel implements EmbeddingModel {
+
+	private final Duration latency;
+
+	private final int dimensions;
+
+	FakeEmbeddingModel(Duration latency, int dimensions) {
+		this.latency = latency;
+		this.dimensions = dimensions;
+	}
+
+	@Override
+	public EmbeddingResponse call(EmbeddingRequest request) {
+		FakeAiAutoConfiguration.pause(this.latency);
+		var embeddings = new ArrayList<Embedding>();
+		var instructions = request.getInstructions();
+		for (var i = 0; i < instructions.size(); i++) {
+			embeddings.add(new Embedding(this.vector(instructions.get(i)), i));
+		}
+		return new EmbeddingResponse(embeddings);
+	}
+
+	@Override
+	public float[] embed(Document document) {
+		return this.embed(document.getText());
+	}
+
+	@Override
+	public int dimensions() {
+		return this.dimensions;
+	}
+
+	private float[] vector(String text) {
+		var random = new SplittableRandom(text.hashCode());
+		var vector = new float[this.dimensions];
+		var norm = 0d;
+		for (var i = 0; i < vector.length; i++) {
+			vector[i] = (float) random.nextGaussian();
+			norm += vector[i] * vector[i];
+		}
+		for (var i = 0; i < vector.length; i++) {
+			vector[i] = (float) (vector[i] / Math.sqrt(norm));
+		}
+		return vector;
+	}
+
+}
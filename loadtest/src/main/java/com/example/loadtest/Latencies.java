@@ -0,0 +1,65 @@
+package com.example.loadtest;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Response times for one workload. Each virtual user records into its own instance, which
+ * keeps the hot path free of contention, and the instances are merged once the run is
+ * over.
+ */
+class Latencies {
+
+	private long[] nanos = new long[1024];
+
+	private int count;
+
+	private int errors;
+
+	private boolean sorted = true;
+
+	void record(long nanos) {
+		if (this.count == this.nanos.length) {
+			this.nanos = Arrays.copyOf(this.nanos, this.count * 2);
+		}
+		this.nanos[this.count++] = nanos;
+		this.sorted = false;
+	}
+
+	void error() {
+		this.errors++;
+	}
+
+	void merge(Latencies other) {
+		for (var i = 0; i < other.count; i++) {
+			this.record(other.nanos[i]);
+		}
+		this.errors += other.errors;
+	}
+
+	int count() {
+		return this.count;
+	}
+
+	int errors() {
+		return this.errors;
+	}
+
+	/**
+	 * Returns the nearest-rank percentile of the successful requests, for example
+	 * {@code 99.9} for p99.9.
+	 */
+	Duration percentile(double percentile) {
+		if (this.count == 0) {
+			return Duration.ZERO;
+		}
+		if (!this.sorted) {
+			Arrays.sort(this.nanos, 0, this.count);
+			this.sorted = true;
+		}
+		// the epsilon keeps 99.9 / 100 * 2000 from landing just above 1998
+		var rank = (int) Math.ceil(percentile / 100 * this.count - 1e-9);
+		return Duration.ofNanos(this.nanos[Math.clamp(rank - 1, 0, this.count - 1)]);
+	}
+
+}
@@ -0,0 +1,296 @@
+package com.example.loadtest;
+
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+import org.testcontainers.utility.MountableFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Starts dogs, the assistant and the gateway against a throwaway pgvector database, a
+ * {@link StubOidcIssuer stub OIDC issuer} and {@link FakeAiAutoConfiguration fake AI
+ * models}, then drives a weighted mix of requests through the gateway from a number of
+ * logged in virtual users. It reports the throughput and latency percentiles of each
+ * workload and the GC and allocation figures of each service, and exits with {@code 1} if
+ * the run went over budget or a virtual user failed. Everything is configured with system
+ * properties, see {@code loadtest.sh}.
+ */
+public class LoadTest {
+
+	private static final String GATEWAY = "http://localhost:8081";
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	record Settings(int users, Duration warmup, Duration duration, Duration thinkTime, List<Workload> mix,
+			String username, Duration chatLatency, Duration embeddingLatency, double maxErrorRate,
+			Optional<Duration> maxP99, Path dogs, Path assistant, Path gateway, Path dataSql) {
+
+		static Settings fromSystemProperties() {
+			return new Settings(Integer.getInteger("loadtest.users", 20), duration("loadtest.warmup", "PT15S"),
+					duration("loadtest.duration", "PT1M"), duration("loadtest.think-time", "PT0S"),
+					Workload.parse(System.getProperty("loadtest.mix", "dogs=6,me=3,ask=1")),
+					System.getProperty("loadtest.username", "josh"), duration("loadtest.ai.chat-latency", "PT0.2S"),
+					duration("loadtest.ai.embedding-latency", "PT0.02S"),
+					Double.parseDouble(System.getProperty("loadtest.max-error-rate", "0")),
+					Optional.ofNullable(System.getProperty("loadtest.max-p99")).map(Duration::parse),
+					path("loadtest.dogs.jar", "../dogs/target/dogs-0.0.1-SNAPSHOT.jar"),
+					path("loadtest.assistant.jar", "../assistant/target/assistant-0.0.1-SNAPSHOT.jar"),
+					path("loadtest.gateway.jar", "../gateway/target/gateway-0.0.1-SNAPSHOT.jar"),
+					path("loadtest.data-sql", "../data.sql"));
+		}
+
+		private static Duration duration(String property, String defaultValue) {
+			return Duration.parse(System.getProperty(property, defaultValue));
+		}
+
+		private static Path path(String property, String defaultValue) {
+			return Path.of(System.getProperty(property, defaultValue)).toAbsolutePath();
+		}
+
+	}
+
+	record Workload(String name, String path, int weight) {
+
+		private static final Map<String, String> PATHS = Map.of("dogs", "/dogs/dogs", "me", "/dogs/me", "ask",
+				"/assistant/ask?question=do%20you%20have%20any%20neurotic%20dogs%3F");
+
+		static List<Workload> parse(String mix) {
+			return Arrays.stream(mix.split(",")).map(entry -> entry.trim().split("=")).map(entry -> {
+				if (!PATHS.containsKey(entry[0])) {
+					throw new IllegalArgumentException(
+							"unknown workload " + entry[0] + ", expected one of " + PATHS.keySet());
+				}
+				return new Workload(entry[0], PATHS.get(entry[0]), Integer.parseInt(entry[1]));
+			}).filter(workload -> workload.weight() > 0).toList();
+		}
+
+	}
+
+	public static void main(String[] args) throws Exception {
+		var settings = Settings.fromSystemProperties();
+		var output = Files.createDirectories(Path.of("target", "loadtest"));
+		boolean withinBudget;
+		var image = DockerImageName.parse("pgvector/pgvector:pg17").asCompatibleSubstituteFor("postgres");
+		try (var postgres = new PostgreSQLContainer<>(image);
+				var issuer = new StubOidcIssuer(9090, settings.username())) {
+			postgres
+				.withCopyFileToContainer(MountableFile.forHostPath(settings.dataSql()),
+						"/docker-entrypoint-initdb.d/data.sql")
+				.start();
+			issuer.start();
+			var database = List.of("--spring.datasource.url=" + postgres.getJdbcUrl(),
+					"--spring.datasource.username=" + postgres.getUsername(),
+					"--spring.datasource.password=" + postgres.getPassword());
+			var services = new ArrayList<ServiceProcess>();
+			Map<String, Latencies> results;
+			var failures = new ArrayList<Throwable>();
+			Instant from;
+			Instant to;
+			try {
+				services.add(ServiceProcess.start("dogs", output, List.of(),
+						concat(List.of("-jar", settings.dogs().toString()), database),
+						URI.create("http://localhost:8080/"), status -> true, Duration.ofMinutes(2)));
+				services.add(ServiceProcess
+					.start("assistant", output, List.of("-cp", settings.assistant().toString(), "-Dloader.path=" + Path
+						.of(FakeAiAutoConfiguration.class.getProtectionDomain().getCodeSource().getLocation().toURI()),
+							"org.springframework.boot.loader.launch.PropertiesLauncher"),
+							concat(database,
+									List.of("--spring.ai.model.chat=none", "--spring.ai.model.embedding=none",
+											"--spring.ai.mcp.client.enabled=false",
+											"--loadtest.ai.chat-latency=" + settings.chatLatency(),
+											"--loadtest.ai.embedding-latency=" + settings.embeddingLatency())),
+							URI.create("http://localhost:8083/actuator/health/readiness"), status -> status == 200,
+							Duration.ofMinutes(2)));
+				services.add(ServiceProcess.start("gateway", output, List.of(),
+						List.of("-jar", settings.gateway().toString()), URI.create(GATEWAY + "/"), status -> true,
+						Duration.ofMinutes(2)));
+				var start = Instant.now();
+				from = start.plus(settings.warmup());
+				to = from.plus(settings.duration());
+				results = drive(settings, from, to, failures);
+			} //
+			finally {
+				for (var service : services.reversed()) {
+					service.close();
+				}
+			}
+			try (var report = new PrintStream(Files.newOutputStream(output.resolve("report.txt")), true)) {
+				withinBudget = report(settings, results, failures, services, from, to, System.out);
+				report(settings, results, failures, services, from, to, report);
+			}
+		}
+		System.exit(withinBudget ? 0 : 1);
+	}
+
+	/**
+	 * Runs the virtual users until {@code to} and merges their latencies. A user that
+	 * fails stops sending requests, so its failure is added to {@code failures} rather
+	 * than lost on its own thread.
+	 */
+	private static Map<String, Latencies> drive(Settings settings, Instant from, Instant to, List<Throwable> failures)
+			throws InterruptedException {
+		var perUser = new ArrayList<Map<String, Latencies>>();
+		var users = new ArrayList<Future<?>>();
+		try (var executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("user-", 0).factory())) {
+			for (var i = 0; i < settings.users(); i++) {
+				var latencies = new LinkedHashMap<String, Latencies>();
+				settings.mix().forEach(workload -> latencies.put(workload.name(), new Latencies()));
+				perUser.add(latencies);
+				users.add(executor.submit(() -> user(settings, latencies, from, to)));
+			}
+			for (var user : users) {
+				try {
+					user.get();
+				} //
+				catch (ExecutionException ex) {
+					failures.add(ex.getCause());
+				}
+			}
+		}
+		var results = new LinkedHashMap<String, Latencies>();
+		settings.mix().forEach(workload -> results.put(workload.name(), new Latencies()));
+		perUser.forEach(latencies -> latencies.forEach((name, l) -> results.get(name).merge(l)));
+		return results;
+	}
+
+	/**
+	 * A closed-loop virtual user: it logs in through the gateway once, then keeps sending
+	 * one request at a time until the run is over. Only requests that start after the
+	 * warmup count.
+	 */
+	private static void user(Settings settings, Map<String, Latencies> latencies, Instant from, Instant to) {
+		var totalWeight = settings.mix().stream().mapToInt(Workload::weight).sum();
+		try (var http = HttpClient.newBuilder()
+			.cookieHandler(new CookieManager())
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.build()) {
+			// the first request is redirected through the stub issuer and back, which
+			// leaves the user with a gateway session
+			var login = http.send(request("/dogs/me"), HttpResponse.BodyHandlers.ofString());
+			if (login.statusCode() != 200) {
+				throw new IllegalStateException(Thread.currentThread().getName() + " could not log in, got "
+						+ login.statusCode() + ": " + login.body());
+			}
+			while (Instant.now().isBefore(to)) {
+				var workload = pick(settings.mix(), ThreadLocalRandom.current().nextInt(totalWeight));
+				var measured = Instant.now().isAfter(from);
+				var started = System.nanoTime();
+				try {
+					var response = http.send(request(workload.path()), HttpResponse.BodyHandlers.discarding());
+					var elapsed = System.nanoTime() - started;
+					if (measured && response.statusCode() == 200) {
+						latencies.get(workload.name()).record(elapsed);
+					}
+					else if (measured) {
+						latencies.get(workload.name()).error();
+					}
+				} //
+				catch (IOException ex) {
+					if (measured) {
+						latencies.get(workload.name()).error();
+					}
+				}
+				if (!settings.thinkTime().isZero()) {
+					Thread.sleep(settings.thinkTime());
+				}
+			}
+		} //
+		catch (IOException | InterruptedException ex) {
+			throw new IllegalStateException(Thread.currentThread().getName() + " failed: " + ex, ex);
+		}
+	}
+
+	private static Workload pick(List<Workload> mix, int random) {
+		for (var workload : mix) {
+			random -= workload.weight();
+			if (random < 0) {
+				return workload;
+			}
+		}
+		return mix.getLast();
+	}
+
+	private static HttpRequest request(String path) {
+		return HttpRequest.newBuilder(URI.create(GATEWAY + path)).timeout(Duration.ofSeconds(30)).build();
+	}
+
+	private static boolean report(Settings settings, Map<String, Latencies> results, List<Throwable> failures,
+			List<ServiceProcess> services, Instant from, Instant to, PrintStream out) {
+		var seconds = Duration.between(from, to).toMillis() / 1000d;
+		var withinBudget = true;
+		out.printf("%d users, %s warmup, %s measured, chat latency %s, embedding latency %s%n%n", settings.users(),
+				settings.warmup(), settings.duration(), settings.chatLatency(), settings.embeddingLatency());
+		out.printf("%-10s %10s %8s %12s", "workload", "requests", "errors", "throughput");
+		for (var percentile : PERCENTILES) {
+			out.printf(" %10s", "p" + (percentile == (int) percentile ? String.valueOf((int) percentile) : percentile));
+		}
+		out.printf(" %10s%n", "max");
+		for (var entry : results.entrySet()) {
+			var latencies = entry.getValue();
+			var requests = latencies.count() + latencies.errors();
+			out.printf("%-10s %10d %8d %10.1f/s", entry.getKey(), requests, latencies.errors(), requests / seconds);
+			for (var percentile : PERCENTILES) {
+				out.printf(" %10s", millis(latencies.percentile(percentile)));
+			}
+			out.printf(" %10s%n", millis(latencies.percentile(100)));
+			var errorRate = requests == 0 ? 1 : latencies.errors() / (double) requests;
+			if (errorRate > settings.maxErrorRate()) {
+				out.printf("  %s: error rate %.2f%% is over the budget of %.2f%%%n", entry.getKey(), errorRate * 100,
+						settings.maxErrorRate() * 100);
+				withinBudget = false;
+			}
+			var p99 = latencies.percentile(99);
+			if (settings.maxP99().isPresent() && p99.compareTo(settings.maxP99().get()) > 0) {
+				out.printf("  %s: p99 %s is over the budget of %s%n", entry.getKey(), millis(p99),
+						millis(settings.maxP99().get()));
+				withinBudget = false;
+			}
+		}
+		if (!failures.isEmpty()) {
+			out.printf("%n%d of %d users failed:%n", failures.size(), settings.users());
+			failures.forEach(failure -> out.printf("  %s%n", failure.getMessage()));
+			withinBudget = false;
+		}
+		out.printf("%n%-10s %6s %12s %12s %16s%n", "service", "gcs", "gc pauses", "max pause", "allocation rate");
+		for (var service : services) {
+			service.gcStatistics(from, to)
+				.ifPresentOrElse(
+						gc -> out.printf("%-10s %6d %12s %12s %13.1fMB/s%n", service.name(), gc.collections(),
+								millis(gc.pauses()), millis(gc.longestPause()), gc.allocationRate() / (1024 * 1024)),
+						() -> out.printf("%-10s no readable flight recording, it did not shut down cleanly%n",
+								service.name()));
+		}
+		return withinBudget;
+	}
+
+	private static String millis(Duration duration) {
+		return "%.1fms".formatted(duration.toNanos() / 1_000_000d);
+	}
+
+	private static List<String> concat(List<String> a, List<String> b) {
+		var all = new ArrayList<>(a);
+		all.addAll(b);
+		return all;
+	}
+
+}
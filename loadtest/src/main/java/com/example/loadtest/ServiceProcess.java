@@ -0,0 +1,145 @@
+package com.example.loadtest;
+
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * One of the services under test, running in its own JVM with a flight recording that is
+ * dumped when the process exits. The recording is where the GC and allocation figures in
+ * the report come from.
+ */
+class ServiceProcess implements AutoCloseable {
+
+	private final String name;
+
+	private final Process process;
+
+	private final Path recording;
+
+	private ServiceProcess(String name, Process process, Path recording) {
+		this.name = name;
+		this.process = process;
+		this.recording = recording;
+	}
+
+	/**
+	 * Launches {@code java [jvmArguments] [arguments]} and waits until {@code readiness}
+	 * answers with a status that {@code ready} accepts.
+	 */
+	static ServiceProcess start(String name, Path output, List<String> jvmArguments, List<String> arguments,
+			URI readiness, IntPredicate ready, Duration timeout) throws IOException, InterruptedException {
+		var recording = output.resolve(name + ".jfr");
+		var command = new ArrayList<String>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-XX:StartFlightRecording=filename=" + recording + ",dumponexit=true,settings=default");
+		command.addAll(jvmArguments);
+		command.addAll(arguments);
+		var process = new ProcessBuilder(command).redirectErrorStream(true)
+			.redirectOutput(output.resolve(name + ".log").toFile())
+			.start();
+		var service = new ServiceProcess(name, process, recording);
+		service.awaitReady(readiness, ready, timeout, output);
+		return service;
+	}
+
+	String name() {
+		return this.name;
+	}
+
+	private void awaitReady(URI readiness, IntPredicate ready, Duration timeout, Path output)
+			throws InterruptedException {
+		var deadline = Instant.now().plus(timeout);
+		try (var http = HttpClient.newHttpClient()) {
+			var request = HttpRequest.newBuilder(readiness).timeout(Duration.ofSeconds(5)).build();
+			while (Instant.now().isBefore(deadline)) {
+				if (!this.process.isAlive()) {
+					throw new IllegalStateException(
+							this.name + " exited during startup, see " + output.resolve(this.name + ".log"));
+				}
+				try {
+					if (ready.test(http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode())) {
+						return;
+					}
+				} //
+				catch (IOException ex) {
+					// not listening yet
+				}
+				Thread.sleep(250);
+			}
+		}
+		this.close();
+		throw new IllegalStateException(this.name + " was not ready after " + timeout);
+	}
+
+	/**
+	 * Reads the flight recording for the window in which the load was applied. Only valid
+	 * once the process has been {@link #close() closed}. Empty if there is no readable
+	 * recording, which is the case when the JVM crashed or had to be killed, since it is
+	 * only dumped on a clean exit.
+	 */
+	Optional<GcStatistics> gcStatistics(Instant from, Instant to) {
+		try {
+			return Optional.of(readGcStatistics(from, to));
+		} //
+		catch (IOException ex) {
+			return Optional.empty();
+		}
+	}
+
+	private GcStatistics readGcStatistics(Instant from, Instant to) throws IOException {
+		var collections = 0;
+		var pauses = Duration.ZERO;
+		var longestPause = Duration.ZERO;
+		var allocated = 0L;
+		for (var event : RecordingFile.readAllEvents(this.recording)) {
+			if (event.getStartTime().isBefore(from) || event.getStartTime().isAfter(to)) {
+				continue;
+			}
+			switch (event.getEventType().getName()) {
+				case "jdk.GarbageCollection" -> {
+					collections++;
+					pauses = pauses.plus(event.getDuration("sumOfPauses"));
+					longestPause = max(longestPause, event.getDuration("longestPause"));
+				}
+				case "jdk.ObjectAllocationSample" -> allocated += event.getLong("weight");
+				default -> {
+				}
+			}
+		}
+		var seconds = Duration.between(from, to).toMillis() / 1000d;
+		return new GcStatistics(collections, pauses, longestPause, allocated / seconds);
+	}
+
+	private static Duration max(Duration a, Duration b) {
+		return a.compareTo(b) >= 0 ? a : b;
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		this.process.destroy();
+		if (!this.process.waitFor(30, TimeUnit.SECONDS)) {
+			this.process.destroyForcibly().waitFor();
+		}
+	}
+
+	/**
+	 * @param allocationRate estimated from the {@code jdk.ObjectAllocationSample}
+	 * weights, in bytes per second
+	 */
+	record GcStatistics(int collections, Duration pauses, Duration longestPause, double allocationRate) {
+	}
+
+}
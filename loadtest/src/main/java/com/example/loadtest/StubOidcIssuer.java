@@ -0,0 +1,181 @@
+package com.example.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Stands in for the auth server on {@code localhost:9090}. It publishes the OpenID
+ * Connect discovery document and the JWKS, approves every authorization request straight
+ * away and issues RS256 signed tokens for one user. That is enough for the gateway's
+ * OAuth login and the resource servers' JWT validation to work without a browser.
+ */
+class StubOidcIssuer implements AutoCloseable {
+
+	private final ObjectMapper json = new ObjectMapper();
+
+	private final Map<String, String> nonces = new ConcurrentHashMap<>();
+
+	private final RSAKey key;
+
+	private final HttpServer server;
+
+	private final String issuer;
+
+	private final String username;
+
+	StubOidcIssuer(int port, String username) throws IOException, JOSEException {
+		this.issuer = "http://localhost:" + port;
+		this.username = username;
+		this.key = new RSAKeyGenerator(2048).keyID(UUID.randomUUID().toString()).generate();
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		this.server.createContext("/.well-known/openid-configuration", this::configuration);
+		this.server.createContext("/oauth2/jwks", this::jwks);
+		this.server.createContext("/oauth2/authorize", this::authorize);
+		this.server.createContext("/oauth2/token", this::token);
+	}
+
+	void start() {
+		this.server.start();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+	}
+
+	private void configuration(HttpExchange exchange) throws IOException {
+		var configuration = new HashMap<String, Object>();
+		configuration.put("issuer", this.issuer);
+		configuration.put("authorization_endpoint", this.issuer + "/oauth2/authorize");
+		configuration.put("token_endpoint", this.issuer + "/oauth2/token");
+		configuration.put("jwks_uri", this.issuer + "/oauth2/jwks");
+		configuration.put("response_types_supported", List.of("code"));
+		configuration.put("grant_types_supported", List.of("authorization_code"));
+		configuration.put("subject_types_supported", List.of("public"));
+		configuration.put("id_token_signing_alg_values_supported", List.of("RS256"));
+		configuration.put("scopes_supported", List.of("openid"));
+		configuration.put("token_endpoint_auth_methods_supported", List.of("client_secret_basic"));
+		this.respond(exchange, this.json.writeValueAsString(configuration));
+	}
+
+	private void jwks(HttpExchange exchange) throws IOException {
+		this.respond(exchange, new JWKSet(this.key.toPublicJWK()).toString());
+	}
+
+	private void authorize(HttpExchange exchange) throws IOException {
+		var parameters = parameters(exchange.getRequestURI().getRawQuery());
+		var code = UUID.randomUUID().toString();
+		this.nonces.put(code, parameters.getOrDefault("nonce", ""));
+		var redirect = parameters.get("redirect_uri") + "?code=" + encode(code) + "&state="
+				+ encode(parameters.getOrDefault("state", ""));
+		exchange.getResponseHeaders().set("Location", redirect);
+		exchange.sendResponseHeaders(302, -1);
+		exchange.close();
+	}
+
+	private void token(HttpExchange exchange) throws IOException {
+		var parameters = parameters(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+		var nonce = this.nonces.remove(parameters.getOrDefault("code", ""));
+		if (nonce == null) {
+			exchange.sendResponseHeaders(400, -1);
+			exchange.close();
+			return;
+		}
+		var clientId = clientId(exchange.getRequestHeaders().getFirst("Authorization"));
+		var now = Instant.now();
+		var expires = now.plus(Duration.ofHours(1));
+		var claims = new JWTClaimsSet.Builder().issuer(this.issuer)
+			.subject(this.username)
+			.audience(clientId)
+			.issueTime(Date.from(now))
+			.expirationTime(Date.from(expires));
+		var idToken = claims.build();
+		if (!nonce.isEmpty()) {
+			idToken = new JWTClaimsSet.Builder(idToken).claim("nonce", nonce).build();
+		}
+		var accessToken = claims.claim("scope", "openid").build();
+		var response = Map.of("access_token", this.sign(accessToken), "id_token", this.sign(idToken), "token_type",
+				"Bearer", "expires_in", Duration.between(now, expires).toSeconds(), "scope", "openid");
+		this.respond(exchange, this.json.writeValueAsString(response));
+	}
+
+	private String sign(JWTClaimsSet claims) {
+		try {
+			var header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(this.key.getKeyID())
+				.type(JOSEObjectType.JWT)
+				.build();
+			var jwt = new SignedJWT(header, claims);
+			jwt.sign(new RSASSASigner(this.key));
+			return jwt.serialize();
+		} //
+		catch (JOSEException ex) {
+			throw new IllegalStateException("could not sign the token", ex);
+		}
+	}
+
+	private void respond(HttpExchange exchange, String body) throws IOException {
+		var bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (var out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static String clientId(String authorization) {
+		if (authorization == null || !authorization.startsWith("Basic ")) {
+			return "spring";
+		}
+		var credentials = new String(Base64.getDecoder().decode(authorization.substring("Basic ".length())),
+				StandardCharsets.UTF_8);
+		return URLDecoder.decode(credentials.substring(0, credentials.indexOf(':')), StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, String> parameters(String query) {
+		var parameters = new HashMap<String, String>();
+		if (query == null || query.isEmpty()) {
+			return parameters;
+		}
+		for (var pair : query.split("&")) {
+			var equals = pair.indexOf('=');
+			var name = equals < 0 ? pair : pair.substring(0, equals);
+			var value = equals < 0 ? "" : pair.substring(equals + 1);
+			parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+					URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return parameters;
+	}
+
+	private static String encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.example.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatenciesTest {
+
+	@Test
+	void percentiles() {
+		var first = new Latencies();
+		var second = new Latencies();
+		for (var i = 1; i <= 2000; i++) {
+			(i % 2 == 0 ? first : second).record(Duration.ofMillis(i).toNanos());
+		}
+		second.error();
+		first.merge(second);
+		assertThat(first.count()).isEqualTo(2000);
+		assertThat(first.errors()).isEqualTo(1);
+		assertThat(first.percentile(50)).isEqualTo(Duration.ofMillis(1000));
+		assertThat(first.percentile(99.9)).isEqualTo(Duration.ofMillis(1998));
+		assertThat(first.percentile(100)).isEqualTo(Duration.ofMillis(2000));
+	}
+
+}
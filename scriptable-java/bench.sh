@@ -0,0 +1,59 @@
+#!/usr/bin/env bash
+# reports the time from launch until script.java answers on /hi, and its RSS at that point,
+# without (jvm) and with (aot) a JDK AOT cache, which needs java 25. java is launched directly
+# on the classpath jbang resolved, so jbang's own JVM isn't part of the numbers, and the cache
+# is recorded by a training run on that same classpath, since the JVM won't use a cache that
+# was recorded for a different one. the variants take turns so that they see the same machine.
+# SCRIPT_CLASSPATH overrides the classpath, and anything after [runs] is passed to java.
+#
+# usage: ./bench.sh [runs] [java options]
+
+runs=${1:-10}
+shift
+java=${JAVA_HOME:+$JAVA_HOME/bin/}java
+work=$(mktemp -d)
+cache=$work/script.aot
+trap 'rm -rf $work' EXIT
+
+if [ -z "$SCRIPT_CLASSPATH" ]; then
+  jbang build script.java > /dev/null || exit 1
+  SCRIPT_CLASSPATH=$(jbang info classpath script.java)
+fi
+
+# the training run exits as soon as the context has refreshed
+$java --enable-preview "$@" -XX:AOTCacheOutput=$cache -Dspring.context.exit=onRefresh \
+  -cp "$SCRIPT_CLASSPATH" script > $work/training.log 2>&1
+if [ ! -f $cache ]; then
+  echo "could not record an AOT cache, see below" >&2 && cat $work/training.log >&2 && exit 1
+fi
+
+# prints "<variant> <ms> <rss MB>" once script.java answers on /hi
+run() {
+  variant=$1
+  shift
+  start=$(date +%s%N)
+  $java --enable-preview "$@" -cp "$SCRIPT_CLASSPATH" script > $work/run.log 2>&1 &
+  pid=$!
+  until curl -sf -o /dev/null http://localhost:8080/hi; do
+    if ! kill -0 $pid 2>/dev/null; then
+      echo "script.java exited before it was ready, see below" >&2 && cat $work/run.log >&2 && exit 1
+    fi
+    sleep 0.02
+  done
+  ready=$(( ($(date +%s%N) - start) / 1000000 ))
+  rss=$(ps -o rss= -p $pid)
+  kill $pid && wait $pid 2>/dev/null
+  echo "$variant $ready $(( rss / 1024 ))"
+}
+
+for i in $(seq 1 $runs); do
+  run jvm "$@" || exit 1
+  run aot -XX:AOTCache=$cache "$@" || exit 1
+done | tee /dev/stderr | sort -k1,1 -k2,2n | awk '
+  { n[$1]++; ms[$1, n[$1]] = $2; rss[$1] += $3 }
+  END {
+    for (v in n) {
+      printf "%-4s ready in: median %5dms  min %5dms  max %5dms  rss %4dMB  (%d runs)\n", v,
+        ms[v, int((n[v] + 1) / 2)], ms[v, 1], ms[v, n[v]], rss[v] / n[v], n[v]
+    }
+  }'
@@ -1,5 +1,6 @@
 package org.springframework.context.annotation;
 
+import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.parsing.FailFastProblemReporter;
 import org.springframework.beans.factory.parsing.PassThroughSourceExtractor;
 import org.springframework.beans.factory.parsing.ProblemReporter;
@@ -15,12 +16,16 @@ import java.util.Set;
 
 public abstract class ImplicitClassConfigurationUtils {
 
+    // see SharedMetadataReaderFactoryContextInitializer, which isn't public
+    private static final String SHARED_METADATA_READER_FACTORY =
+            "org.springframework.boot.autoconfigure.internalCachingMetadataReaderFactory";
+
     static public void process(BeanDefinitionRegistry registry,
                                Environment environment,
                                ResourceLoader resourceLoader,
                                Class<?> implicitClass) {
         BeanNameGenerator componentScanBeanNameGenerator = AnnotationBeanNameGenerator.INSTANCE;
-        MetadataReaderFactory metadataReaderFactory = new CachingMetadataReaderFactory();
+        MetadataReaderFactory metadataReaderFactory = metadataReaderFactory(registry, resourceLoader);
         ProblemReporter problemReporter = new FailFastProblemReporter();
         PassThroughSourceExtractor passThroughSourceExtractor = new PassThroughSourceExtractor();
         FullyQualifiedAnnotationBeanNameGenerator beanNameGenerator = FullyQualifiedAnnotationBeanNameGenerator.INSTANCE;
@@ -48,4 +53,16 @@ public abstract class ImplicitClassConfigurationUtils {
                 ccp.getImportRegistry());
         ccbdr.loadBeanDefinitions(Set.of(parsedConfigurationClass));
     }
+
+    // Spring Boot shares one metadata reader factory with the ConfigurationClassPostProcessor, so
+    // use that one if it's there instead of reading every class the implicit class touches again
+    private static MetadataReaderFactory metadataReaderFactory(BeanDefinitionRegistry registry,
+                                                               ResourceLoader resourceLoader) {
+        if (registry instanceof BeanFactory beanFactory
+                && beanFactory.containsBean(SHARED_METADATA_READER_FACTORY)) {
+            return beanFactory.getBean(SHARED_METADATA_READER_FACTORY,
+                    MetadataReaderFactory.class);
+        }
+        return new CachingMetadataReaderFactory(resourceLoader);
+    }
 }